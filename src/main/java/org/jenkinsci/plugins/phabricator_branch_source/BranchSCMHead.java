@@ -16,7 +16,7 @@ public class BranchSCMHead extends SCMHead {
      */
     public BranchSCMHead(@NonNull String name, @NonNull String repoUrl) {
         super(name);
-        this.repoUrl = repoUrl;
+        this.repoUrl = repoUrl.intern();
     }
 
     /**
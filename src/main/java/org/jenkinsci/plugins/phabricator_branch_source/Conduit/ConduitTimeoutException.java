@@ -0,0 +1,13 @@
+package org.jenkinsci.plugins.phabricator_branch_source.Conduit;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when the time budget of a client is used up before a Conduit call is made.
+ */
+public class ConduitTimeoutException extends InterruptedIOException {
+
+    public ConduitTimeoutException(String message) {
+        super(message);
+    }
+}
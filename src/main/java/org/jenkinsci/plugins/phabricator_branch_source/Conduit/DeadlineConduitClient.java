@@ -0,0 +1,69 @@
+package org.jenkinsci.plugins.phabricator_branch_source.Conduit;
+
+import com.uber.jenkins.phabricator.conduit.ConduitAPIClient;
+import com.uber.jenkins.phabricator.conduit.ConduitAPIException;
+import net.sf.json.JSONObject;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conduit client that gives up on calls that take too long.
+ *
+ * Every request gets connect and socket timeouts of at most the call timeout, capped by the time left until the
+ * deadline of the whole scan. Once that deadline has passed no more calls are made.
+ */
+public class DeadlineConduitClient extends ConduitAPIClient {
+
+    private final long deadline;
+    private final long callTimeout;
+
+    /**
+     * Constructor.
+     *
+     * @param timeout time all calls of this client may take together, in milliseconds.
+     * @param callTimeout time a single call may wait for a connection or for data, in milliseconds.
+     */
+    public DeadlineConduitClient(String url, String token, long timeout, long callTimeout) {
+        super(url, token);
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.callTimeout = callTimeout;
+    }
+
+    /**
+     * @return whether the time budget of this client has been used up.
+     */
+    public boolean isExpired() {
+        return getRemainingMillis() <= 0;
+    }
+
+    private long getRemainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+    @Override
+    public JSONObject perform(String action, JSONObject params) throws IOException, ConduitAPIException {
+        if (isExpired()) {
+            throw new ConduitTimeoutException("Time budget used up before calling " + action);
+        }
+        return super.perform(action, params);
+    }
+
+    @Override
+    public HttpUriRequest createRequest(String action, JSONObject params) throws UnsupportedEncodingException, ConduitAPIException {
+        HttpUriRequest request = super.createRequest(action, params);
+        if (request instanceof HttpRequestBase) {
+            int timeout = (int) Math.max(1, Math.min(callTimeout, getRemainingMillis()));
+            ((HttpRequestBase) request).setConfig(RequestConfig.custom()
+                    .setConnectionRequestTimeout(timeout)
+                    .setConnectTimeout(timeout)
+                    .setSocketTimeout(timeout)
+                    .build());
+        }
+        return request;
+    }
+}
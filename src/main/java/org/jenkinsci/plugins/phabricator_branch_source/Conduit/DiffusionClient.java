@@ -3,6 +3,7 @@ package org.jenkinsci.plugins.phabricator_branch_source.Conduit;
 import com.uber.jenkins.phabricator.conduit.ConduitAPIClient;
 import com.uber.jenkins.phabricator.conduit.ConduitAPIException;
 import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
 import net.sf.json.JSONObject;
 
 import java.io.IOException;
@@ -18,18 +19,30 @@ public class DiffusionClient {
         this.conduit = conduit;
     }
 
+    /**
+     * Retrieves all active repositories, following the result pages until the last one.
+     */
     public ArrayList<Diffusion> getActiveRepositories() throws IOException, ConduitAPIException {
         JSONObject attachments = new JSONObject();
         attachments.element("uris", true);
 
-        JSONObject params = new JSONObject();
-        params.element("order", "name")
-                .element("queryKey", "active")
-                .element("attachments", attachments);
+        ArrayList<Diffusion> diffusions = new ArrayList<>();
+        String after = null;
+        do {
+            JSONObject params = new JSONObject();
+            params.element("order", "name")
+                    .element("queryKey", "active")
+                    .element("attachments", attachments);
+            if (after != null) {
+                params.element("after", after);
+            }
 
-        JSONObject response = conduit.perform("diffusion.repository.search", params);
+            JSONObject response = conduit.perform("diffusion.repository.search", params);
+            diffusions.addAll(getDiffusionsFromResponse(response));
+            after = getNextPage(response);
+        } while (after != null);
 
-        return getDiffusionsFromResponse(response);
+        return diffusions;
     }
 
     public Diffusion getRepository(String repository) throws IOException, ConduitAPIException {
@@ -51,6 +64,21 @@ public class DiffusionClient {
         return diffusions.get(0);
     }
 
+    private String getNextPage(JSONObject response) {
+        if (!response.has("result") || response.getJSONObject("result").isNullObject()) {
+            return null;
+        }
+        JSONObject cursor = response.getJSONObject("result").optJSONObject("cursor");
+        if (cursor == null || cursor.isNullObject() || !cursor.has("after")) {
+            return null;
+        }
+        Object after = cursor.get("after");
+        if (after == null || JSONNull.getInstance().equals(after)) {
+            return null;
+        }
+        return after.toString();
+    }
+
     private ArrayList<Diffusion> getDiffusionsFromResponse(JSONObject response) {
         ArrayList<Diffusion> diffusions = new ArrayList<>();
         boolean hasResult = response.has("result") && !response.getJSONObject("result").isNullObject();
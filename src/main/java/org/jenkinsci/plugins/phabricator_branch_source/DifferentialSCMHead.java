@@ -22,13 +22,17 @@ public class DifferentialSCMHead extends SCMHead {
      */
     public DifferentialSCMHead(String repoUrl, String name, String branchName, String baseBranchName, @Nullable Integer revisionId) {
         super(name);
-        this.repoUrl = repoUrl;
+        // Repo urls and remote names are shared by all heads of a repository
+        this.repoUrl = repoUrl.intern();
         this.branchName = branchName;
         this.revisionId = revisionId;
 
-        String[] splitName = baseBranchName.split("/", 2);
-        baseBranchRemoteName = splitName[0];
-        baseBranchTargetName = splitName[1];
+        int separator = baseBranchName.indexOf('/');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Base branch " + baseBranchName + " is missing a remote name");
+        }
+        baseBranchRemoteName = baseBranchName.substring(0, separator).intern();
+        baseBranchTargetName = baseBranchName.substring(separator + 1);
     }
 
     public String getRepoUrl() {
@@ -17,6 +17,7 @@ import hudson.plugins.git.*;
 import hudson.plugins.git.extensions.GitSCMExtension;
 import hudson.plugins.git.extensions.impl.BuildChooserSetting;
 import hudson.plugins.git.extensions.impl.ChangelogToBranch;
+import hudson.plugins.git.extensions.impl.CloneOption;
 import hudson.plugins.git.util.BuildChooser;
 import hudson.plugins.git.util.DefaultBuildChooser;
 import hudson.scm.SCM;
@@ -25,7 +26,9 @@ import hudson.util.ListBoxModel;
 import jenkins.plugins.git.AbstractGitSCMSource;
 import jenkins.scm.api.*;
 import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
 import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.phabricator_branch_source.Conduit.DeadlineConduitClient;
 import org.jenkinsci.plugins.phabricator_branch_source.Conduit.Diffusion;
 import org.jenkinsci.plugins.phabricator_branch_source.Conduit.DiffusionClient;
 import org.kohsuke.stapler.AncestorInPath;
@@ -36,10 +39,17 @@ import org.kohsuke.stapler.QueryParameter;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 /**
  * SCM source implementation for Phabricator.
@@ -69,6 +79,51 @@ public class PhabricatorSCMSource extends SCMSource {
      */
     private String repoCredentialsId;
 
+    /**
+     * Space separated wildcards of the branches to include.
+     */
+    private String includes = DescriptorImpl.defaultIncludes;
+
+    /**
+     * Space separated wildcards of the branches to exclude.
+     */
+    private String excludes = DescriptorImpl.defaultExcludes;
+
+    /**
+     * Status of the Differential Revisions to build, as understood by differential.query.
+     */
+    private String revisionStatus = DescriptorImpl.defaultRevisionStatus;
+
+    /**
+     * Space separated PHIDs of the authors whose Differential Revisions are built. Empty for all authors.
+     */
+    private String authorPHIDs;
+
+    /**
+     * Space separated PHIDs of the projects whose Differential Revisions are built. Empty for all projects.
+     */
+    private String projectPHIDs;
+
+    /**
+     * Whether Differential Revisions that are still a draft are skipped.
+     */
+    private boolean excludeDrafts;
+
+    /**
+     * Time a single scan may take, in minutes.
+     */
+    private int scanTimeoutMinutes = DescriptorImpl.defaultScanTimeoutMinutes;
+
+    /**
+     * Time a single Conduit call may wait for a connection or for data, in seconds.
+     */
+    private int conduitTimeoutSeconds = DescriptorImpl.defaultConduitTimeoutSeconds;
+
+    /**
+     * Differential Revisions that were not examined during the last full scan. These are examined first on the next scan.
+     */
+    private transient volatile Set<Integer> deferredRevisions = Collections.emptySet();
+
     private static final Logger LOGGER = Logger.getLogger(PhabricatorSCMSource.class.getName());
 
     @DataBoundConstructor
@@ -114,19 +169,132 @@ public class PhabricatorSCMSource extends SCMSource {
         return phabricatorServerUrl;
     }
 
+    public String getIncludes() {
+        return includes;
+    }
+
+    @DataBoundSetter
+    public void setIncludes(String includes) {
+        // No includes would exclude every branch, treat a blank field as including all branches
+        this.includes = Util.fixEmptyAndTrim(includes) == null ? DescriptorImpl.defaultIncludes : includes.trim();
+    }
+
+    public String getExcludes() {
+        return excludes;
+    }
+
+    @DataBoundSetter
+    public void setExcludes(String excludes) {
+        this.excludes = Util.fixNull(excludes).trim();
+    }
+
+    public String getRevisionStatus() {
+        return revisionStatus;
+    }
+
+    @DataBoundSetter
+    public void setRevisionStatus(String revisionStatus) {
+        // Only open statuses are offered, anything else would fetch the closed revisions of the whole server
+        this.revisionStatus = DescriptorImpl.openRevisionStatuses.contains(revisionStatus) ? revisionStatus : DescriptorImpl.defaultRevisionStatus;
+    }
+
+    @CheckForNull
+    public String getAuthorPHIDs() {
+        return authorPHIDs;
+    }
+
+    @DataBoundSetter
+    public void setAuthorPHIDs(String authorPHIDs) {
+        this.authorPHIDs = Util.fixEmptyAndTrim(authorPHIDs);
+    }
+
+    @CheckForNull
+    public String getProjectPHIDs() {
+        return projectPHIDs;
+    }
+
+    @DataBoundSetter
+    public void setProjectPHIDs(String projectPHIDs) {
+        this.projectPHIDs = Util.fixEmptyAndTrim(projectPHIDs);
+    }
+
+    public boolean isExcludeDrafts() {
+        return excludeDrafts;
+    }
+
+    @DataBoundSetter
+    public void setExcludeDrafts(boolean excludeDrafts) {
+        this.excludeDrafts = excludeDrafts;
+    }
+
+    public int getScanTimeoutMinutes() {
+        return scanTimeoutMinutes;
+    }
+
+    @DataBoundSetter
+    public void setScanTimeoutMinutes(int scanTimeoutMinutes) {
+        this.scanTimeoutMinutes = scanTimeoutMinutes > 0 ? scanTimeoutMinutes : DescriptorImpl.defaultScanTimeoutMinutes;
+    }
+
+    public int getConduitTimeoutSeconds() {
+        return conduitTimeoutSeconds;
+    }
+
+    @DataBoundSetter
+    public void setConduitTimeoutSeconds(int conduitTimeoutSeconds) {
+        this.conduitTimeoutSeconds = conduitTimeoutSeconds > 0 ? conduitTimeoutSeconds : DescriptorImpl.defaultConduitTimeoutSeconds;
+    }
+
+    private Object readResolve() {
+        // Sources saved before the filters were introduced
+        if (Util.fixEmptyAndTrim(includes) == null) {
+            includes = DescriptorImpl.defaultIncludes;
+        }
+        if (excludes == null) {
+            excludes = DescriptorImpl.defaultExcludes;
+        }
+        if (!DescriptorImpl.openRevisionStatuses.contains(revisionStatus)) {
+            revisionStatus = DescriptorImpl.defaultRevisionStatus;
+        }
+        // Sources saved before the time budgets were introduced
+        if (scanTimeoutMinutes <= 0) {
+            scanTimeoutMinutes = DescriptorImpl.defaultScanTimeoutMinutes;
+        }
+        if (conduitTimeoutSeconds <= 0) {
+            conduitTimeoutSeconds = DescriptorImpl.defaultConduitTimeoutSeconds;
+        }
+        deferredRevisions = Collections.emptySet();
+        return this;
+    }
+
     @Override
     protected void retrieve(@CheckForNull SCMSourceCriteria criteria, @NonNull SCMHeadObserver observer, @CheckForNull SCMHeadEvent<?> event, @NonNull TaskListener listener) throws IOException, InterruptedException {
         ConduitCredentials credentials = ConduitCredentialsDescriptor.getCredentials(null, phabCredentialsId);
-        ConduitAPIClient client = new ConduitAPIClient(credentials.getUrl(), credentials.getToken().getPlainText());
+        DeadlineConduitClient client = new DeadlineConduitClient(credentials.getUrl(), credentials.getToken().getPlainText(),
+                TimeUnit.MINUTES.toMillis(scanTimeoutMinutes), TimeUnit.SECONDS.toMillis(conduitTimeoutSeconds));
 
         listener.getLogger().format("Connecting to %s with credentials%n", credentials.getUrl());
 
-        retrieveBranches(client, observer, listener);
+        boolean complete = retrieveBranches(client, observer, listener);
+
+        if (!observer.isObserving()) {
+            return;
+        }
+
+        // Only a full scan knows which revisions were left over, event and single head lookups stop early
+        boolean fullScan = event == null && observer.getIncludes() == null;
+        complete &= retrieveDifferentialRevisions(client, observer, fullScan, listener);
 
-        retrieveDifferentialRevisions(client, observer, listener);
+        if (!complete) {
+            // Failing the scan keeps the heads that were not confirmed, instead of removing them as orphans
+            throw new IOException("Scan did not complete, the remaining heads will be examined on the next scan");
+        }
     }
 
-    private void retrieveBranches(ConduitAPIClient client, @NonNull SCMHeadObserver observer, @NonNull TaskListener listener ) throws InterruptedException {
+    /**
+     * @return false when the branches could not be retrieved.
+     */
+    private boolean retrieveBranches(ConduitAPIClient client, @NonNull SCMHeadObserver observer, @NonNull TaskListener listener ) throws InterruptedException {
         try {
             DiffusionClient diffusionClient = new DiffusionClient(client);
             Diffusion diffusion = diffusionClient.getRepository(repository);
@@ -142,15 +310,21 @@ public class PhabricatorSCMSource extends SCMSource {
             JSONObject branchesResponse = client.perform("diffusion.branchquery", params);
             if(!branchesResponse.has("result")) {
                 listener.getLogger().format("Could not find any branches.%n");
-                return;
+                return true;
             }
 
             JSONArray openBranches = branchesResponse.getJSONArray("result");
 
             int nrOpenBranches = openBranches.size();
             listener.getLogger().format("Done. Found %s open branches.%n", nrOpenBranches);
+            Pattern includePattern = Pattern.compile(getPattern(includes));
+            Pattern excludePattern = Pattern.compile(getPattern(excludes));
             for (Integer i = 0; i < nrOpenBranches; i++) {
                 String branchName = openBranches.getJSONObject(i).getString("shortName");
+                if (!includePattern.matcher(branchName).matches() || excludePattern.matcher(branchName).matches()) {
+                    listener.getLogger().format("Skipping excluded branch %s.%n", branchName);
+                    continue;
+                }
 //                String branchRef = openBranches.getJSONObject(i).getJSONObject("rawFields").getString("refname");
                 String commitHash = openBranches.getJSONObject(i).getString("commitIdentifier");
 
@@ -161,18 +335,32 @@ public class PhabricatorSCMSource extends SCMSource {
 
                 observe(observer, listener, head, revision);
 //                observe(observer, listener, repositoryUrl, branchName, branchRef, "", 0);
+
+                if (!observer.isObserving()) {
+                    return true;
+                }
             }
         } catch( IOException | ConduitAPIException e ) {
             listener.getLogger().format("Error: %s%n", e.getMessage());
+            checkInterrupt();
+            return false;
         }
         listener.getLogger().println();
+        return true;
     }
 
-    private void retrieveDifferentialRevisions(ConduitAPIClient client, @NonNull SCMHeadObserver observer, @NonNull TaskListener listener ) throws InterruptedException {
+    /**
+     * @return false when not all revisions could be examined.
+     */
+    private boolean retrieveDifferentialRevisions(DeadlineConduitClient client, @NonNull SCMHeadObserver observer, boolean fullScan, @NonNull TaskListener listener ) throws InterruptedException {
         try {
-            listener.getLogger().format("Looking up all open revisions%n");
+            listener.getLogger().format("Looking up all revisions with %s%n", revisionStatus);
+            JSONArray authors = splitPhids(authorPHIDs);
             JSONObject openParams = new JSONObject();
-            openParams.element("status", "status-open");
+            openParams.element("status", revisionStatus);
+            if (authors.size() > 0) {
+                openParams.element("authors", authors);
+            }
             JSONObject openResponse = client.perform("differential.query", openParams);
             JSONArray openRevisions = openResponse.getJSONArray("result");
             JSONArray openPhids = new JSONArray();
@@ -180,7 +368,15 @@ public class PhabricatorSCMSource extends SCMSource {
             for (Integer i = 0; i < nrOfOpenRevisions; i++) {
                 openPhids.add(openRevisions.getJSONObject(i).getString("phid"));
             }
-            listener.getLogger().format("Found %d open revisions for all repositories%n", nrOfOpenRevisions);
+            listener.getLogger().format("Found %d matching revisions for all repositories%n", nrOfOpenRevisions);
+            if (nrOfOpenRevisions == 0) {
+                // Without a phids constraint the search would return every revision of the repository
+                listener.getLogger().format("%nDone examining repository%n");
+                if (fullScan) {
+                    deferredRevisions = Collections.emptySet();
+                }
+                return true;
+            }
 
             // should be a query to get open revisions, this is currently not possible:
             // - the builtin query "all" returns closed revisions
@@ -191,88 +387,245 @@ public class PhabricatorSCMSource extends SCMSource {
             repositoryPHIDs.add(repository);
             JSONObject constraints = new JSONObject();
             constraints.element("repositoryPHIDs", repositoryPHIDs);
-            if(openPhids.size() > 0 ) {
-                constraints.element("phids", openPhids);
+            constraints.element("phids", openPhids);
+            if (authors.size() > 0) {
+                constraints.element("authorPHIDs", authors);
+            }
+            JSONArray projects = splitPhids(projectPHIDs);
+            if (projects.size() > 0) {
+                constraints.element("projects", projects);
             }
             params.element("constraints", constraints);
 
             listener.getLogger().format("Looking up open revisions for repository.%n");
-            // Retrieve all (should be only open) revisions for the current repository
-            JSONObject response = client.perform("differential.revision.search", params);
-
-            if(response.has("result") && response.getJSONObject("result").has("data")) {
-                JSONArray revisions = response.getJSONObject("result").getJSONArray("data");
+            // Retrieve all (should be only open) revisions for the current repository, following the result pages
+            JSONArray revisions = new JSONArray();
+            String after = null;
+            do {
+                if (after != null) {
+                    params.element("after", after);
+                }
+                JSONObject response = client.perform("differential.revision.search", params);
+                if (!response.has("result") || response.getJSONObject("result").isNullObject()) {
+                    break;
+                }
+                JSONObject result = response.getJSONObject("result");
+                if (result.has("data")) {
+                    revisions.addAll(result.getJSONArray("data"));
+                }
+                after = getNextPage(result);
+            } while (after != null);
 
+            if(!revisions.isEmpty()) {
                 listener.getLogger().format("Found %d open revisions for the current repository%n", revisions.size());
 
+                Set<Integer> previouslyDeferred = deferredRevisions;
+                List<JSONObject> ordered = new ArrayList<>();
                 for (int i = 0; i < revisions.size(); i++) {
                     JSONObject revision = revisions.getJSONObject(i);
+                    // Revisions left over from the last scan go first, so they can't be starved by slow ones
+                    if (previouslyDeferred.contains(revision.getInt("id"))) {
+                        ordered.add(0, revision);
+                    } else {
+                        ordered.add(revision);
+                    }
+                }
+
+                Set<Integer> deferred = new LinkedHashSet<>();
+                for (JSONObject revision : ordered) {
+                    Integer revisionId = revision.getInt("id");
+                    if (client.isExpired()) {
+                        deferred.add(revisionId);
+                        continue;
+                    }
+
                     JSONObject fields = revision.getJSONObject("fields");
-                    listener.getLogger().format("%nChecking revision D%s: %s%n", revision.get("id").toString(), fields.get("title").toString());
-
-                    JSONObject diffParams = new JSONObject();
-                    JSONArray revisionIDs = new JSONArray();
-                    revisionIDs.add(revision.get("id").toString());
-                    diffParams.element("revisionIDs", revisionIDs);
-
-                    JSONObject diffResponse = client.perform("differential.querydiffs", diffParams);
-                    JSONObject diffs = diffResponse.getJSONObject("result");
-                    listener.getLogger().format("Found %s diffs for revision %s%n", diffs.size(), revision.get("id").toString());
-                    if(diffs.size() > 0) {
-                        Iterator<?> keys = diffs.keys();
-                        while (keys.hasNext()) {
-                            String key = (String) keys.next();
-                            listener.getLogger().format("Getting diff %s.%n", key);
-                            JSONObject diff = diffs.getJSONObject(key);
-
-                            if(!diff.has("properties") ) {
-                                continue;
-                            }
-
-                            JSONObject properties = diff.optJSONObject("properties");
-                            if(properties == null) {
-                                continue;
-                            }
-
-
-                            if(!properties.has("arc.staging") || !properties.getJSONObject("arc.staging").get("status").equals("pushed")) {
-                                continue;
-                            }
-                            listener.getLogger().format("Diff %s has changes staged%n", key);
-
-                            JSONObject staging =  properties.getJSONObject("arc.staging");
-                            JSONArray stagedData = staging.getJSONArray("refs");
-                            JSONObject diffRef = null;
-                            JSONObject baseRef = null;
-                            for (int j = 0, c = stagedData.size(); j < c; j++) {
-                                JSONObject ref = stagedData.getJSONObject(j);
-                                listener.getLogger().format("Diff %s ref type %s%n", key, ref.get("type"));
-                                if (ref.get("type").equals("diff")) {
-                                    diffRef = ref;
-                                } else if(ref.get("type").equals("base")) {
-                                    baseRef = ref;
-                                }
-                            }
-
-                            if(baseRef != null && diffRef != null) {
-                                observe(observer, listener, diffRef.getJSONObject("remote").get("uri").toString(), diffRef.get("ref").toString(),
-                                        diffRef.get("commit").toString(), baseRef.get("ref").toString(), revision.getInt("id"));
-
-                                if (!observer.isObserving()) {
-                                    return;
-                                }
-                            }
-                        }
+                    listener.getLogger().format("%nChecking revision D%s: %s%n", revisionId, fields.get("title").toString());
+
+                    if (excludeDrafts && isDraft(fields)) {
+                        listener.getLogger().format("Skipping draft revision D%s%n", revisionId);
+                        continue;
+                    }
+
+                    try {
+                        retrieveDiffs(client, observer, revisionId, listener);
+                    } catch (IOException e) {
+                        // Timeouts and connection problems may be gone by the next scan
+                        listener.getLogger().format("Could not examine revision D%s: %s%n", revisionId, e.toString());
+                        checkInterrupt();
+                        deferred.add(revisionId);
+                        continue;
+                    } catch (ConduitAPIException | RuntimeException e) {
+                        // Errors from Phabricator and malformed staging data come back on every scan. Deferring these
+                        // would fail every scan, and jobs of deleted branches and closed revisions would never be removed.
+                        listener.getLogger().format("Skipping revision D%s: %s%n", revisionId, e.toString());
+                        continue;
+                    }
+
+                    if (!observer.isObserving()) {
+                        return true;
                     }
                     checkInterrupt();
                 }
+
+                if (fullScan) {
+                    deferredRevisions = deferred;
+                }
+                if (!deferred.isEmpty()) {
+                    listener.getLogger().format("%nRevisions left for the next scan: %s%n", deferred);
+                    return false;
+                }
             }
 
         }
         catch( IOException | ConduitAPIException e ) {
             listener.getLogger().format("Exception: %s%n", e.toString());
+            checkInterrupt();
+            return false;
         }
         listener.getLogger().format("%nDone examining repository%n");
+        return true;
+    }
+
+    private void retrieveDiffs(ConduitAPIClient client, @NonNull SCMHeadObserver observer, Integer revisionId, @NonNull TaskListener listener) throws IOException, ConduitAPIException {
+        JSONObject diffParams = new JSONObject();
+        JSONArray revisionIDs = new JSONArray();
+        revisionIDs.add(revisionId.toString());
+        diffParams.element("revisionIDs", revisionIDs);
+
+        JSONObject diffResponse = client.perform("differential.querydiffs", diffParams);
+        JSONObject diffs = diffResponse.getJSONObject("result");
+        listener.getLogger().format("Found %s diffs for revision %s%n", diffs.size(), revisionId);
+
+        // All diffs of a revision map to the same head, only the newest staged diff is built
+        JSONObject diff = getNewestStagedDiff(diffs);
+        if (diff == null) {
+            listener.getLogger().format("Revision %s has no staged diffs%n", revisionId);
+            return;
+        }
+
+        listener.getLogger().format("Using staged diff %s%n", diff.get("id"));
+        JSONObject diffRef = getStagedRef(diff, "diff");
+        JSONObject baseRef = getStagedRef(diff, "base");
+        observe(observer, listener, diffRef.getJSONObject("remote").get("uri").toString(), diffRef.get("ref").toString(),
+                diffRef.get("commit").toString(), baseRef.get("ref").toString(), revisionId);
+    }
+
+    /**
+     * Finds the diff with the highest id that has both its diff and base ref pushed to the staging area.
+     *
+     * @param diffs result of differential.querydiffs, keyed by diff id.
+     * @return the diff, or null when none of the diffs is staged.
+     */
+    @CheckForNull
+    static JSONObject getNewestStagedDiff(JSONObject diffs) {
+        int newestDiffId = -1;
+        JSONObject newestDiff = null;
+        Iterator<?> keys = diffs.keys();
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+            JSONObject diff = diffs.getJSONObject(key);
+
+            JSONObject properties = diff.optJSONObject("properties");
+            if(properties == null || properties.isNullObject()) {
+                continue;
+            }
+
+            JSONObject staging = properties.optJSONObject("arc.staging");
+            if(staging == null || staging.isNullObject() || !"pushed".equals(staging.optString("status"))) {
+                continue;
+            }
+
+            if (getStagedRef(diff, "diff") == null || getStagedRef(diff, "base") == null) {
+                continue;
+            }
+
+            int diffId;
+            try {
+                diffId = Integer.parseInt(key);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (diffId > newestDiffId) {
+                newestDiffId = diffId;
+                newestDiff = diff;
+            }
+        }
+        return newestDiff;
+    }
+
+    /**
+     * @return the staged ref of the given type ("diff" or "base"), or null when the diff has no such ref.
+     */
+    @CheckForNull
+    private static JSONObject getStagedRef(JSONObject diff, String type) {
+        JSONArray stagedData = diff.getJSONObject("properties").getJSONObject("arc.staging").optJSONArray("refs");
+        if (stagedData == null) {
+            return null;
+        }
+        for (int j = 0, c = stagedData.size(); j < c; j++) {
+            JSONObject ref = stagedData.getJSONObject(j);
+            if (type.equals(ref.optString("type"))) {
+                return ref;
+            }
+        }
+        return null;
+    }
+
+    @CheckForNull
+    private static String getNextPage(JSONObject result) {
+        JSONObject cursor = result.optJSONObject("cursor");
+        if (cursor == null || cursor.isNullObject()) {
+            return null;
+        }
+        Object after = cursor.opt("after");
+        if (after == null || JSONNull.getInstance().equals(after)) {
+            return null;
+        }
+        return after.toString();
+    }
+
+    private static boolean isDraft(JSONObject fields) {
+        if (fields.optBoolean("isDraft", false)) {
+            return true;
+        }
+        JSONObject status = fields.optJSONObject("status");
+        return status != null && "draft".equals(status.optString("value"));
+    }
+
+    private static JSONArray splitPhids(@CheckForNull String phids) {
+        JSONArray result = new JSONArray();
+        for (String phid : Util.fixNull(phids).split("\\s+")) {
+            if (!phid.isEmpty()) {
+                result.add(phid);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Turns a space separated list of wildcards into a regular expression.
+     */
+    static String getPattern(String branches) {
+        StringBuilder quotedBranches = new StringBuilder();
+        for (String wildcard : branches.split(" ")) {
+            StringBuilder quotedBranch = new StringBuilder();
+            for (String branch : wildcard.split("(?=[*])|(?<=[*])")) {
+                if (branch.equals("*")) {
+                    quotedBranch.append(".*");
+                } else if (!branch.isEmpty()) {
+                    quotedBranch.append(Pattern.quote(branch));
+                }
+            }
+            if (quotedBranch.length() == 0) {
+                continue;
+            }
+            if (quotedBranches.length() > 0) {
+                quotedBranches.append("|");
+            }
+            quotedBranches.append(quotedBranch);
+        }
+        return quotedBranches.toString();
     }
 
     private void observe(SCMHeadObserver observer, TaskListener listener, SCMHead head, SCMRevision revision) {
@@ -303,54 +656,99 @@ public class PhabricatorSCMSource extends SCMSource {
         if(head instanceof DifferentialSCMHead) {
             DifferentialSCMHead h = (DifferentialSCMHead) head;
 
-            BuildChooser buildChooser = revision instanceof AbstractGitSCMSource.SCMRevisionImpl ? new AbstractGitSCMSource.SpecificRevisionBuildChooser(
-                    (AbstractGitSCMSource.SCMRevisionImpl) revision) : new DefaultBuildChooser();
-
-            ArrayList<GitSCMExtension> extensions = new ArrayList<>();
-            extensions.add(new BuildChooserSetting(buildChooser));
+            List<GitSCMExtension> extensions = getGitExtensions(revision);
             extensions.add(new ChangelogToBranch(new ChangelogToBranchOptions(h.getBaseBranchRemoteName(), h.getBaseBranchTargetName())));
             return new GitSCM(
                     getGitRemoteConfigs(h),
-                    Collections.singletonList(new BranchSpec(h.getTagName())),
+                    Collections.singletonList(getBranchSpec(h)),
                     false, Collections.<SubmoduleConfig>emptyList(),
                     null, null,
                     extensions);
         } else if(head instanceof BranchSCMHead) {
             BranchSCMHead h = (BranchSCMHead) head;
 
-            BuildChooser buildChooser = revision instanceof AbstractGitSCMSource.SCMRevisionImpl ? new AbstractGitSCMSource.SpecificRevisionBuildChooser(
-                    (AbstractGitSCMSource.SCMRevisionImpl) revision) : new DefaultBuildChooser();
-
-            ArrayList<GitSCMExtension> extensions = new ArrayList<>();
-            extensions.add(new BuildChooserSetting(buildChooser));
             return new GitSCM(
                     getGitRemoteConfigs(h),
-                    Collections.singletonList(new BranchSpec("+refs/heads/*:refs/remotes/origin/*")),
+                    Collections.singletonList(getBranchSpec(h)),
                     false, Collections.<SubmoduleConfig>emptyList(),
                     null, null,
-                    extensions);
+                    getGitExtensions(revision));
 
         }
         throw new IllegalArgumentException("Can't handle this yet");
     }
 
+    /**
+     * @return the branch spec that matches only the remote ref the head is fetched into.
+     */
+    static BranchSpec getBranchSpec(SCMHead head) throws IllegalArgumentException {
+        if (head instanceof DifferentialSCMHead) {
+            return new BranchSpec(getRemoteRef(((DifferentialSCMHead) head).getTagName()));
+        } else if (head instanceof BranchSCMHead) {
+            return new BranchSpec(getRemoteRef("refs/heads/" + head.getName()));
+        }
+        throw new IllegalArgumentException("Can't handle this ");
+    }
+
+    private List<GitSCMExtension> getGitExtensions(SCMRevision revision) {
+        BuildChooser buildChooser = revision instanceof AbstractGitSCMSource.SCMRevisionImpl ? new AbstractGitSCMSource.SpecificRevisionBuildChooser(
+                (AbstractGitSCMSource.SCMRevisionImpl) revision) : new DefaultBuildChooser();
+
+        // Only fetch the refs of the head itself, without any tags
+        CloneOption cloneOption = new CloneOption(false, true, null, null);
+        cloneOption.setHonorRefspec(true);
+
+        ArrayList<GitSCMExtension> extensions = new ArrayList<>();
+        extensions.add(new BuildChooserSetting(buildChooser));
+        extensions.add(cloneOption);
+        return extensions;
+    }
+
     public List<UserRemoteConfig> getGitRemoteConfigs(SCMHead head) throws IllegalArgumentException {
         if (head instanceof DifferentialSCMHead) {
             DifferentialSCMHead h = (DifferentialSCMHead) head;
 
+            String refspec = getRefSpec(h.getTagName());
+            // The changelog is computed against the base ref, which has to be fetched as well
+            if (h.getBaseBranchRemoteName().equals("refs")) {
+                String baseRef = h.getBaseBranchRemoteName() + "/" + h.getBaseBranchTargetName();
+                refspec += " +" + baseRef + ":" + baseRef;
+            } else {
+                refspec += " +refs/heads/" + h.getBaseBranchTargetName()
+                        + ":refs/remotes/" + h.getBaseBranchRemoteName() + "/" + h.getBaseBranchTargetName();
+            }
+
             List<UserRemoteConfig> result = new ArrayList<UserRemoteConfig>();
-            result.add(new UserRemoteConfig(h.getRepoUrl(), "origin", "+refs/tags/phabricator/*:refs/remotes/origin/tags/phabricator/*", repoCredentialsId));
+            result.add(new UserRemoteConfig(h.getRepoUrl(), "origin", refspec, repoCredentialsId));
             return result;
         } else if(head instanceof BranchSCMHead) {
             List<UserRemoteConfig> result = new ArrayList<UserRemoteConfig>();
             BranchSCMHead h = (BranchSCMHead) head;
-            String refspec = "+refs/heads/" + h.getName();
+            String refspec = getRefSpec("refs/heads/" + h.getName());
             result.add(new UserRemoteConfig(h.getRepoUrl(), "origin", refspec, repoCredentialsId));
             return result;
         }
         throw new IllegalArgumentException("Can't handle this ");
     }
 
+    /**
+     * @return the refspec that fetches only the given ref of the repository.
+     */
+    private static String getRefSpec(String ref) {
+        return "+" + ref + ":" + getRemoteRef(ref);
+    }
+
+    /**
+     * @return the remote tracking ref a ref of the repository is fetched into, e.g. refs/remotes/origin/master or
+     * refs/remotes/origin/tags/phabricator/diff/1
+     */
+    private static String getRemoteRef(String ref) {
+        if (ref.startsWith("refs/heads/")) {
+            return "refs/remotes/origin/" + ref.substring("refs/heads/".length());
+        }
+        return "refs/remotes/origin/" + (ref.startsWith("refs/") ? ref.substring("refs/".length()) : ref);
+    }
+
     public String getRemote() {
         return "http://....git";
     }
@@ -358,11 +756,43 @@ public class PhabricatorSCMSource extends SCMSource {
     @Extension
     public static class DescriptorImpl extends SCMSourceDescriptor {
 
+        public static final String defaultIncludes = "*";
+        public static final String defaultExcludes = "";
+        public static final String defaultRevisionStatus = "status-open";
+        public static final List<String> openRevisionStatuses = Collections.unmodifiableList(Arrays.asList(
+                "status-open", "status-needs-review", "status-needs-revision", "status-accepted"));
+        public static final int defaultScanTimeoutMinutes = 10;
+        public static final int defaultConduitTimeoutSeconds = 60;
+
+        private static final long CONNECTION_CHECK_MAX_AGE = TimeUnit.SECONDS.toMillis(30);
+
+        private static final long CONNECTION_CHECK_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+        private final transient RepositoryCatalog repositoryCatalog = new RepositoryCatalog();
+
+        private final transient ConcurrentMap<String, ConnectionCheck> connectionChecks = new ConcurrentHashMap<>();
+
         @Override
         public String getDisplayName() {
             return "Phabricator";
         }
 
+        public String getDefaultIncludes() {
+            return defaultIncludes;
+        }
+
+        public String getDefaultExcludes() {
+            return defaultExcludes;
+        }
+
+        public int getDefaultScanTimeoutMinutes() {
+            return defaultScanTimeoutMinutes;
+        }
+
+        public int getDefaultConduitTimeoutSeconds() {
+            return defaultConduitTimeoutSeconds;
+        }
+
         public ListBoxModel doFillPhabCredentialsIdItems(@AncestorInPath SCMSourceOwner context) {
             StandardListBoxModel result = new StandardListBoxModel();
             result.withEmptySelection();
@@ -382,14 +812,33 @@ public class PhabricatorSCMSource extends SCMSource {
                     return FormValidation.warning("Credentials are missing url");
                 }
 
-                ConduitAPIClient client = new ConduitAPIClient(credentials.getUrl(), credentials.getToken().getPlainText());
-                try {
-                    client.perform("conduit.ping", new JSONObject());
-                    return FormValidation.ok();
+                // Validation runs on every change of the form, only ping Conduit once in a while. Failures are not
+                // kept, so a fixed credential is picked up right away.
+                String key = RepositoryCatalog.getCacheKey(value, credentials);
+                ConnectionCheck check = connectionChecks.get(key);
+                if (check != null && !check.isExpired()) {
+                    return check.result;
                 }
-                catch( IOException | ConduitAPIException e) {
-                    return FormValidation.warning("Could not connect to "+credentials.getUrl());
+
+                FormValidation result = ping(credentials);
+                if (result.kind == FormValidation.Kind.OK) {
+                    connectionChecks.put(key, new ConnectionCheck(result));
+                } else {
+                    connectionChecks.remove(key);
                 }
+                return result;
+            }
+        }
+
+        private static FormValidation ping(ConduitCredentials credentials) {
+            ConduitAPIClient client = new DeadlineConduitClient(credentials.getUrl(), credentials.getToken().getPlainText(),
+                    CONNECTION_CHECK_TIMEOUT, CONNECTION_CHECK_TIMEOUT);
+            try {
+                client.perform("conduit.ping", new JSONObject());
+                return FormValidation.ok();
+            }
+            catch( IOException | ConduitAPIException e) {
+                return FormValidation.warning("Could not connect to "+credentials.getUrl());
             }
         }
 
@@ -400,12 +849,8 @@ public class PhabricatorSCMSource extends SCMSource {
                 return result.withEmptySelection();
             }
 
-            ConduitCredentials credentials = ConduitCredentialsDescriptor.getCredentials(null, phabCredentialsId);
-            ConduitAPIClient client = new ConduitAPIClient(credentials.getUrl(), credentials.getToken().getPlainText());
             try {
-                DiffusionClient diffusionClient = new DiffusionClient(client);
-                ArrayList<Diffusion> diffusions = diffusionClient.getActiveRepositories();
-                for (Diffusion diff : diffusions) {
+                for (Diffusion diff : repositoryCatalog.getRepositories(phabCredentialsId)) {
                     result.add(diff.getName(), diff.getPhid());
                 }
             }
@@ -417,6 +862,15 @@ public class PhabricatorSCMSource extends SCMSource {
             return result;
         }
 
+        public ListBoxModel doFillRevisionStatusItems() {
+            ListBoxModel result = new ListBoxModel();
+            result.add("Open", "status-open");
+            result.add("Needs Review", "status-needs-review");
+            result.add("Needs Revision", "status-needs-revision");
+            result.add("Accepted", "status-accepted");
+            return result;
+        }
+
         public ListBoxModel doFillRepoCredentialsIdItems(@AncestorInPath SCMSourceOwner context) {
             StandardListBoxModel result = new StandardListBoxModel();
             result.withEmptySelection();
@@ -428,5 +882,17 @@ public class PhabricatorSCMSource extends SCMSource {
             return result;
         }
 
+        private static class ConnectionCheck {
+            private final FormValidation result;
+            private final long checkedAt = System.currentTimeMillis();
+
+            ConnectionCheck(FormValidation result) {
+                this.result = result;
+            }
+
+            boolean isExpired() {
+                return System.currentTimeMillis() - checkedAt > CONNECTION_CHECK_MAX_AGE;
+            }
+        }
     }
 }
\ No newline at end of file
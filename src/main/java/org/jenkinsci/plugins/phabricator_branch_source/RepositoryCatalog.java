@@ -0,0 +1,104 @@
+package org.jenkinsci.plugins.phabricator_branch_source;
+
+import com.uber.jenkins.phabricator.ConduitCredentialsDescriptor;
+import com.uber.jenkins.phabricator.conduit.ConduitAPIException;
+import com.uber.jenkins.phabricator.credentials.ConduitCredentials;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.phabricator_branch_source.Conduit.DeadlineConduitClient;
+import org.jenkinsci.plugins.phabricator_branch_source.Conduit.Diffusion;
+import org.jenkinsci.plugins.phabricator_branch_source.Conduit.DiffusionClient;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of the repositories that can be selected with each Phabricator credential.
+ *
+ * Only the first lookup for a credential waits for Phabricator. After that the cached repositories are returned right
+ * away, and repositories older than {@link #MAX_AGE} are refreshed in the background. Every lookup is limited to
+ * {@link #LOAD_TIMEOUT}. Changing the url or token of a credential starts a new cache entry.
+ */
+class RepositoryCatalog {
+
+    private static final long MAX_AGE = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long LOAD_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    private static final long CALL_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private static final Logger LOGGER = Logger.getLogger(RepositoryCatalog.class.getName());
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @return the repositories available with the credentials.
+     */
+    List<Diffusion> getRepositories(@NonNull String credentialsId) throws IOException, ConduitAPIException {
+        ConduitCredentials credentials = ConduitCredentialsDescriptor.getCredentials(null, credentialsId);
+        String key = getCacheKey(credentialsId, credentials);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = load(credentials);
+            entries.put(key, entry);
+        } else if (entry.isStale()) {
+            refresh(key, credentials, entry);
+        }
+        return entry.repositories;
+    }
+
+    /**
+     * @return a key that changes when the url or token of the credentials change.
+     */
+    static String getCacheKey(String credentialsId, ConduitCredentials credentials) {
+        return credentialsId + "@" + credentials.getUrl() + "#" + Util.getDigestOf(credentials.getToken().getPlainText());
+    }
+
+    private void refresh(final String key, final ConduitCredentials credentials, final Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        Timer.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    entries.replace(key, entry, load(credentials));
+                } catch (IOException | ConduitAPIException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Could not refresh the Phabricator repositories of " + credentials.getUrl(), e);
+                } finally {
+                    entry.refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    private static Entry load(ConduitCredentials credentials) throws IOException, ConduitAPIException {
+        DeadlineConduitClient client = new DeadlineConduitClient(credentials.getUrl(), credentials.getToken().getPlainText(),
+                LOAD_TIMEOUT, CALL_TIMEOUT);
+        DiffusionClient diffusionClient = new DiffusionClient(client);
+        return new Entry(diffusionClient.getActiveRepositories());
+    }
+
+    private static class Entry {
+        private final List<Diffusion> repositories;
+        private final long loadedAt = System.currentTimeMillis();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(List<Diffusion> repositories) {
+            this.repositories = Collections.unmodifiableList(repositories);
+        }
+
+        boolean isStale() {
+            return System.currentTimeMillis() - loadedAt > MAX_AGE;
+        }
+    }
+}
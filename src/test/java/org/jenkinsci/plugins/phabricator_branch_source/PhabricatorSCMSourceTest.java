@@ -0,0 +1,138 @@
+package org.jenkinsci.plugins.phabricator_branch_source;
+
+import hudson.plugins.git.UserRemoteConfig;
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class PhabricatorSCMSourceTest {
+
+    private static boolean matches(String wildcards, String branchName) {
+        return Pattern.compile(PhabricatorSCMSource.getPattern(wildcards)).matcher(branchName).matches();
+    }
+
+    @Test
+    public void starMatchesEveryBranch() {
+        assertThat(matches("*", "master"), is(true));
+        assertThat(matches("*", "feature/foo"), is(true));
+    }
+
+    @Test
+    public void matchesAnyOfMultipleWildcards() {
+        assertThat(matches("master feature/*", "master"), is(true));
+        assertThat(matches("master feature/*", "feature/foo"), is(true));
+        assertThat(matches("master feature/*", "release/1.0"), is(false));
+        assertThat(matches("master  feature/*", "feature/foo"), is(true));
+    }
+
+    @Test
+    public void quotesSpecialCharacters() {
+        assertThat(matches("release-1.0", "release-1.0"), is(true));
+        assertThat(matches("release-1.0", "release-1x0"), is(false));
+        assertThat(matches("fix(*)", "fix(bar)"), is(true));
+        assertThat(matches("fix(*)", "fixbar"), is(false));
+    }
+
+    @Test
+    public void emptyWildcardsMatchNothing() {
+        assertThat(matches("", "master"), is(false));
+    }
+
+    @Test
+    public void blankIncludesIncludeEveryBranch() {
+        PhabricatorSCMSource source = new PhabricatorSCMSource("id", "PHID-REPO-1");
+
+        source.setIncludes("");
+        assertThat(source.getIncludes(), is("*"));
+
+        source.setIncludes("   ");
+        assertThat(source.getIncludes(), is("*"));
+
+        source.setIncludes(" master ");
+        assertThat(source.getIncludes(), is("master"));
+    }
+
+    private static String stagedDiff(int id, String commit) {
+        return "\"" + id + "\": {\"id\": \"" + id + "\", \"properties\": {\"arc.staging\": {\"status\": \"pushed\", \"refs\": ["
+                + "{\"type\": \"base\", \"ref\": \"refs/tags/phabricator/base/" + id + "\", \"commit\": \"base" + id + "\"},"
+                + "{\"type\": \"diff\", \"ref\": \"refs/tags/phabricator/diff/" + id + "\", \"commit\": \"" + commit + "\","
+                + " \"remote\": {\"uri\": \"ssh://example.com/repo.git\"}}"
+                + "]}}}";
+    }
+
+    @Test
+    public void picksNewestStagedDiff() {
+        // querydiffs returns the newest diff first, the newest one was never staged
+        JSONObject diffs = JSONObject.fromObject("{"
+                + "\"15\": {\"id\": \"15\", \"properties\": []},"
+                + "\"14\": {\"id\": \"14\", \"properties\": {\"arc.staging\": {\"status\": \"repository.vcs\"}}},"
+                + stagedDiff(13, "c13") + ","
+                + stagedDiff(12, "c12")
+                + "}");
+
+        JSONObject diff = PhabricatorSCMSource.getNewestStagedDiff(diffs);
+
+        assertThat(diff.getString("id"), is("13"));
+    }
+
+    @Test
+    public void picksNewestStagedDiffRegardlessOfOrder() {
+        JSONObject diffs = JSONObject.fromObject("{" + stagedDiff(12, "c12") + "," + stagedDiff(13, "c13") + "}");
+
+        assertThat(PhabricatorSCMSource.getNewestStagedDiff(diffs).getString("id"), is("13"));
+    }
+
+    @Test
+    public void findsNothingWithoutStagedDiffs() {
+        JSONObject diffs = JSONObject.fromObject("{\"15\": {\"id\": \"15\", \"properties\": []}}");
+
+        assertThat(PhabricatorSCMSource.getNewestStagedDiff(diffs), is(nullValue()));
+    }
+
+    @Test
+    public void branchFetchesOnlyItsOwnRef() {
+        PhabricatorSCMSource source = new PhabricatorSCMSource("id", "PHID-REPO-1");
+        BranchSCMHead head = new BranchSCMHead("feature/foo", "ssh://example.com/repo.git");
+
+        List<UserRemoteConfig> remotes = source.getGitRemoteConfigs(head);
+
+        assertThat(remotes.size(), is(1));
+        assertThat(remotes.get(0).getUrl(), is("ssh://example.com/repo.git"));
+        assertThat(remotes.get(0).getRefspec(), is("+refs/heads/feature/foo:refs/remotes/origin/feature/foo"));
+        assertThat(PhabricatorSCMSource.getBranchSpec(head).getName(), is("refs/remotes/origin/feature/foo"));
+    }
+
+    @Test
+    public void differentialFetchesDiffAndBaseRef() {
+        PhabricatorSCMSource source = new PhabricatorSCMSource("id", "PHID-REPO-1");
+        DifferentialSCMHead head = new DifferentialSCMHead("ssh://example.com/repo.git", "D7",
+                "refs/tags/phabricator/diff/12", "refs/tags/phabricator/base/12", 7);
+
+        List<UserRemoteConfig> remotes = source.getGitRemoteConfigs(head);
+
+        assertThat(remotes.size(), is(1));
+        // The base ref keeps its own name, ChangelogToBranch compares against refs/tags/phabricator/base/12
+        assertThat(remotes.get(0).getRefspec(), is(
+                "+refs/tags/phabricator/diff/12:refs/remotes/origin/tags/phabricator/diff/12"
+                        + " +refs/tags/phabricator/base/12:refs/tags/phabricator/base/12"));
+        assertThat(head.getBaseBranchRemoteName() + "/" + head.getBaseBranchTargetName(), is("refs/tags/phabricator/base/12"));
+        assertThat(PhabricatorSCMSource.getBranchSpec(head).getName(), is("refs/remotes/origin/tags/phabricator/diff/12"));
+    }
+
+    @Test
+    public void differentialOnRemoteBranchFetchesBaseBranch() {
+        PhabricatorSCMSource source = new PhabricatorSCMSource("id", "PHID-REPO-1");
+        DifferentialSCMHead head = new DifferentialSCMHead("ssh://example.com/repo.git", "D7",
+                "refs/tags/phabricator/diff/12", "origin/master", 7);
+
+        assertThat(source.getGitRemoteConfigs(head).get(0).getRefspec(), is(
+                "+refs/tags/phabricator/diff/12:refs/remotes/origin/tags/phabricator/diff/12"
+                        + " +refs/heads/master:refs/remotes/origin/master"));
+    }
+}